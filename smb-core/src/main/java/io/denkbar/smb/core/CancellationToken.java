@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation flag of a remote call. The token of the call being
+ * processed by the current thread is returned by {@link #current()} and is
+ * cancelled when the caller times out or gives up waiting for the response.
+ */
+public class CancellationToken {
+
+	private final static ThreadLocal<CancellationToken> currentToken = new ThreadLocal<CancellationToken>();
+
+	private final static CancellationToken NONE = new CancellationToken();
+
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @return the token of the call processed by the current thread. If the current thread
+	 * isn't processing any call, a token that is never cancelled is returned
+	 */
+	public static CancellationToken current() {
+		CancellationToken token = currentToken.get();
+		return token!=null?token:NONE;
+	}
+
+	static void setCurrent(CancellationToken token) {
+		if(token!=null) {
+			currentToken.set(token);
+		} else {
+			currentToken.remove();
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws CancellationException if the call has been cancelled
+	 */
+	public void throwIfCancelled() {
+		if(cancelled) {
+			throw new CancellationException("The call has been cancelled by the caller");
+		}
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+}
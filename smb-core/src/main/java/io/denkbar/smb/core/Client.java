@@ -27,11 +27,20 @@ import java.lang.reflect.Proxy;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 
 
 public class Client implements MessageRouterStateListener {
+	
+	private final static Logger logger = LoggerFactory.getLogger(Client.class);
 
 	private String agentHost;
 
@@ -40,6 +49,20 @@ public class Client implements MessageRouterStateListener {
 	private MessageRouter router;
 
 	private boolean isAlive;
+	
+	private OutboundSpool outboundSpool;
+	
+	private final ContentSerializerRegistry contentSerializerRegistry = new ContentSerializerRegistry();
+	
+	private SSLContext sslContext;
+	
+	private MessageKeyExtractor messageKeyExtractor;
+	
+	private int dispatchThreads = 0;
+	
+	private int traceSamplingInterval = 0;
+	
+	private MessageTraceListener traceListener;
 
 	public Client() {
 		
@@ -53,12 +76,57 @@ public class Client implements MessageRouterStateListener {
 		start();
 	}
 
+	/**
+	 * Creates a client connecting over TLS
+	 * 
+	 * @param sslContext the context used to create the TLS connection. It holds the session cache
+	 * which allows later reconnections of this client to resume the TLS session
+	 */
+	public Client(SSLContext sslContext, String agentHost, int agentPort) throws UnknownHostException, IOException {
+		super();
+		this.sslContext = sslContext;
+		this.agentHost = agentHost;
+		this.agentPort = agentPort;
+		connect(agentHost, agentPort);
+		start();
+	}
+
 	public void connect(String agentHost, int agentPort) throws IOException, UnknownHostException {
-		setMessageRouter(new Socket(agentHost, agentPort));
+		setMessageRouter(createSocket(agentHost, agentPort));
+	}
+	
+	private Socket createSocket(String agentHost, int agentPort) throws IOException, UnknownHostException {
+		if(sslContext!=null) {
+			return MessageRouter.createSSLSocket(sslContext, agentHost, agentPort);
+		} else {
+			return new Socket(agentHost, agentPort);
+		}
+	}
+	
+	private ServerSocket createServerSocket() throws IOException {
+		if(sslContext!=null) {
+			return sslContext.getServerSocketFactory().createServerSocket(0);
+		} else {
+			return new ServerSocket(0);
+		}
+	}
+
+	public SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	/**
+	 * Enables TLS for the next connections of this client
+	 * 
+	 * @param sslContext the context used to create the TLS sockets or null for plain sockets
+	 */
+	public void setSSLContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
 	}
 	
 	public void start() {
 		router.start();
+		router.drainOutboundSpool();
 	}
 	
 	public ConnectionFuture prepareForIncommingConnection() throws IOException {
@@ -66,7 +134,14 @@ public class Client implements MessageRouterStateListener {
 	}
 	
 	private void setMessageRouter(Socket socket) throws IOException {
-		router = new MessageRouter(this, socket);
+		router = new MessageRouter(this, socket, contentSerializerRegistry);
+		router.setOutboundSpool(outboundSpool);
+		if(dispatchThreads > 0) {
+			router.setExecutor(Executors.newFixedThreadPool(dispatchThreads));
+		}
+		router.setMessageKeyExtractor(messageKeyExtractor);
+		router.setTraceSamplingInterval(traceSamplingInterval);
+		router.setMessageTraceListener(traceListener);
 		this.isAlive = true;
 	}
 	
@@ -76,20 +151,29 @@ public class Client implements MessageRouterStateListener {
 		
 		public ConnectionFuture() throws IOException {
 			super();
-			serverSocket = new ServerSocket(0);
+			serverSocket = createServerSocket();
 			
 			final ConnectionFuture me = this;
 			new Thread(new Runnable() {
 				public void run() {
-					Socket socket;
+					Socket socket = null;
 					try {
 						socket = serverSocket.accept();
+						if(socket instanceof SSLSocket) {
+							socket.setTcpNoDelay(true);
+							((SSLSocket) socket).startHandshake();
+						}
 						synchronized (me) {
 							setMessageRouter(socket);
 							me.notifyAll();
 						}
 					} catch (IOException e) {
-						
+						logger.error("Error while accepting incoming connection on port " + serverSocket.getLocalPort(), e);
+						if(socket!=null) {
+							try {
+								socket.close();
+							} catch (IOException e1) {}
+						}
 					} finally {
 						try {
 							serverSocket.close();
@@ -134,6 +218,10 @@ public class Client implements MessageRouterStateListener {
 		return router.call(new Message(command, content),timeout);
 	}
 
+	public StreamingResponse stream(String command, Object content, long timeout) {
+		return router.stream(new Message(command, content), timeout);
+	}
+
 	public String getAgentHost() {
 		return agentHost;
 	}
@@ -157,6 +245,26 @@ public class Client implements MessageRouterStateListener {
 	public void close() {
 		router.disconnect();
 		isAlive = false;
+		if(outboundSpool!=null) {
+			outboundSpool.close();
+		}
+	}
+
+	public OutboundSpool getOutboundSpool() {
+		return outboundSpool;
+	}
+
+	/**
+	 * Enables the spooling of the messages sent while disconnected. The spooled
+	 * messages are sent in order as soon as the client is reconnected and started.
+	 * 
+	 * @param outboundSpool the spool to be used by this client and its successive message routers
+	 */
+	public void setOutboundSpool(OutboundSpool outboundSpool) {
+		this.outboundSpool = outboundSpool;
+		if(router!=null) {
+			router.setOutboundSpool(outboundSpool);
+		}
 	}
 
 	public void registerPermanentListener(String type, MessageListener listener) {
@@ -171,9 +279,65 @@ public class Client implements MessageRouterStateListener {
 		router.registerSynchronListener(type, listener);
 	}
 
+	public void registerStreamingListener(String type, StreamingMessageListener listener) {
+		router.registerStreamingListener(type, listener);
+	}
+
 	public void unregisterPermanentListener(String type, MessageListener listener) {
 		router.unregisterPermanentListener(type, listener);
 	}
+
+	public <T> void registerContentSerializer(Class<T> contentClass, int id, ContentSerializer<T> serializer) {
+		contentSerializerRegistry.register(contentClass, id, serializer);
+	}
+
+	public <T> void registerContentClass(Class<T> contentClass, int id) {
+		contentSerializerRegistry.register(contentClass, id);
+	}
+
+	/**
+	 * Enables the tracing of a sample of the calls of the current and the next connections of this client
+	 * 
+	 * @see MessageRouter#setTraceSamplingInterval(int)
+	 */
+	public void setTraceSamplingInterval(int traceSamplingInterval) {
+		this.traceSamplingInterval = traceSamplingInterval;
+		if(router!=null) {
+			router.setTraceSamplingInterval(traceSamplingInterval);
+		}
+	}
+
+	public void setMessageTraceListener(MessageTraceListener traceListener) {
+		this.traceListener = traceListener;
+		if(router!=null) {
+			router.setMessageTraceListener(traceListener);
+		}
+	}
+
+	/**
+	 * Enables the ordered dispatch of the incoming messages for the current and the next connections of this client
+	 * 
+	 * @see MessageRouter#setMessageKeyExtractor(MessageKeyExtractor)
+	 */
+	public void setMessageKeyExtractor(MessageKeyExtractor keyExtractor) {
+		this.messageKeyExtractor = keyExtractor;
+		if(router!=null) {
+			router.setMessageKeyExtractor(keyExtractor);
+		}
+	}
+
+	/**
+	 * Sets the number of threads calling the listeners, for instance to the number of available 
+	 * processors in order to dispatch different keys in parallel. Has to be called before the client is started.
+	 * 
+	 * @param dispatchThreads the size of the listener thread pool of the current and the next connections
+	 */
+	public void setDispatchThreads(int dispatchThreads) {
+		this.dispatchThreads = dispatchThreads;
+		if(router!=null) {
+			router.setExecutor(Executors.newFixedThreadPool(dispatchThreads));
+		}
+	}
 	
 	@SuppressWarnings("unchecked")
 	public <T> T getProxy(final Class<T> interfaceClass, final long calltimeout) {
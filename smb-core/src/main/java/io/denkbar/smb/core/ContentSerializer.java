@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Serializer of the content of a {@link Message} registered for a given content class.
+ * 
+ * @see ContentSerializerRegistry
+ */
+public interface ContentSerializer<T> {
+
+	public void write(T content, ObjectOutput out) throws IOException;
+
+	public T read(ObjectInput in) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps content classes to small integer IDs and their {@link ContentSerializer}. The
+ * content of a {@link Message} whose class is registered is written as its ID followed
+ * by the fields written by the serializer instead of its Java serialization form.
+ * The content of unregistered classes falls back to Java serialization, so that the
+ * serialized form of messages without registered content doesn't change.
+ * 
+ * Both peers have to register the same classes with the same IDs.
+ */
+public class ContentSerializerRegistry {
+
+	private final ConcurrentHashMap<Class<?>, Registration> registrationsByClass = new ConcurrentHashMap<Class<?>, Registration>();
+
+	private final ConcurrentHashMap<Integer, Registration> registrationsById = new ConcurrentHashMap<Integer, Registration>();
+
+	public synchronized <T> void register(Class<T> contentClass, int id, ContentSerializer<T> serializer) {
+		if(id < 0) {
+			throw new IllegalArgumentException("Invalid content type ID " + id + ". IDs have to be non-negative.");
+		}
+		if(registrationsById.containsKey(id)) {
+			throw new RuntimeException("The content type ID " + id + " is already registered for " + registrationsById.get(id).contentClass.getName());
+		}
+		if(registrationsByClass.containsKey(contentClass)) {
+			throw new RuntimeException("The content class " + contentClass.getName() + " is already registered");
+		}
+		Registration registration = new Registration(contentClass, id, serializer);
+		registrationsById.put(id, registration);
+		registrationsByClass.put(contentClass, registration);
+	}
+
+	/**
+	 * Registers a content class with a {@link FieldContentSerializer}
+	 */
+	public <T> void register(Class<T> contentClass, int id) {
+		register(contentClass, id, new FieldContentSerializer<T>(contentClass));
+	}
+
+	Registration get(Class<?> contentClass) {
+		return registrationsByClass.get(contentClass);
+	}
+
+	Registration get(int id) {
+		return registrationsById.get(id);
+	}
+
+	static class Registration {
+
+		final Class<?> contentClass;
+
+		final int id;
+
+		final ContentSerializer<Object> serializer;
+
+		@SuppressWarnings("unchecked")
+		Registration(Class<?> contentClass, int id, ContentSerializer<?> serializer) {
+			super();
+			this.contentClass = contentClass;
+			this.id = id;
+			this.serializer = (ContentSerializer<Object>) serializer;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link ContentSerializer} writing the non-static, non-transient fields of a class
+ * in a fixed order without any class or field metadata. Primitive fields are written
+ * as raw values and the other fields with {@link ObjectOutput#writeObject(Object)}.
+ * 
+ * The content class requires a no-arg constructor (which may be private).
+ */
+public class FieldContentSerializer<T> implements ContentSerializer<T> {
+
+	private final Constructor<T> constructor;
+
+	private final Field[] fields;
+
+	public FieldContentSerializer(Class<T> contentClass) {
+		super();
+		try {
+			constructor = contentClass.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException("The content class " + contentClass.getName() + " has no no-arg constructor", e);
+		}
+		List<Field> fieldList = new ArrayList<Field>();
+		for(Class<?> c = contentClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			List<Field> declaredFields = new ArrayList<Field>();
+			for(Field field:c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if(!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+					field.setAccessible(true);
+					declaredFields.add(field);
+				}
+			}
+			// Order of getDeclaredFields() isn't specified
+			Collections.sort(declaredFields, new Comparator<Field>() {
+				public int compare(Field o1, Field o2) {
+					return o1.getName().compareTo(o2.getName());
+				}
+			});
+			fieldList.addAll(0, declaredFields);
+		}
+		fields = fieldList.toArray(new Field[fieldList.size()]);
+	}
+
+	public void write(T content, ObjectOutput out) throws IOException {
+		try {
+			for(Field field:fields) {
+				Class<?> type = field.getType();
+				if(type == int.class) {
+					out.writeInt(field.getInt(content));
+				} else if(type == long.class) {
+					out.writeLong(field.getLong(content));
+				} else if(type == boolean.class) {
+					out.writeBoolean(field.getBoolean(content));
+				} else if(type == double.class) {
+					out.writeDouble(field.getDouble(content));
+				} else if(type == float.class) {
+					out.writeFloat(field.getFloat(content));
+				} else if(type == short.class) {
+					out.writeShort(field.getShort(content));
+				} else if(type == byte.class) {
+					out.writeByte(field.getByte(content));
+				} else if(type == char.class) {
+					out.writeChar(field.getChar(content));
+				} else {
+					out.writeObject(field.get(content));
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new InvalidClassException(constructor.getDeclaringClass().getName(), e.getMessage());
+		}
+	}
+
+	public T read(ObjectInput in) throws IOException, ClassNotFoundException {
+		try {
+			T content = constructor.newInstance();
+			for(Field field:fields) {
+				Class<?> type = field.getType();
+				if(type == int.class) {
+					field.setInt(content, in.readInt());
+				} else if(type == long.class) {
+					field.setLong(content, in.readLong());
+				} else if(type == boolean.class) {
+					field.setBoolean(content, in.readBoolean());
+				} else if(type == double.class) {
+					field.setDouble(content, in.readDouble());
+				} else if(type == float.class) {
+					field.setFloat(content, in.readFloat());
+				} else if(type == short.class) {
+					field.setShort(content, in.readShort());
+				} else if(type == byte.class) {
+					field.setByte(content, in.readByte());
+				} else if(type == char.class) {
+					field.setChar(content, in.readChar());
+				} else {
+					field.set(content, in.readObject());
+				}
+			}
+			return content;
+		} catch (ReflectiveOperationException e) {
+			throw new InvalidClassException(constructor.getDeclaringClass().getName(), e.getMessage());
+		}
+	}
+}
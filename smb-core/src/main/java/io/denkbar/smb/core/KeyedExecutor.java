@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor running the tasks submitted with the same key sequentially and in
+ * order of submission while tasks of different keys run in parallel on the
+ * underlying executor. Tasks may be submitted concurrently from any thread.
+ * Tasks submitted with a null key aren't ordered and are passed directly to
+ * the underlying executor.
+ * 
+ * Each key has its own lock-free queue which is drained by at most one task of
+ * the underlying executor at a time. A queue is registered for a key exactly as
+ * long as its drainer is scheduled: enqueuing and the removal of an empty queue
+ * are both done atomically on the key's map entry.
+ */
+public class KeyedExecutor {
+
+	private final static Logger logger = LoggerFactory.getLogger(KeyedExecutor.class);
+
+	private final static int MAX_TASKS_PER_RUN = 16;
+
+	private final Executor executor;
+
+	private final ConcurrentHashMap<Object, KeyQueue> queues = new ConcurrentHashMap<Object, KeyQueue>();
+
+	public KeyedExecutor(Executor executor) {
+		super();
+		this.executor = executor;
+	}
+
+	public void execute(Object key, final Runnable task) {
+		if(key == null) {
+			executor.execute(task);
+			return;
+		}
+		final KeyQueue[] created = new KeyQueue[1];
+		queues.compute(key, new BiFunction<Object, KeyQueue, KeyQueue>() {
+			public KeyQueue apply(Object key, KeyQueue queue) {
+				if(queue == null) {
+					queue = new KeyQueue(key);
+					created[0] = queue;
+				}
+				queue.tasks.add(task);
+				return queue;
+			}
+		});
+		if(created[0] != null) {
+			executor.execute(created[0]);
+		}
+	}
+
+	private class KeyQueue implements Runnable {
+
+		private final Object key;
+
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		public KeyQueue(Object key) {
+			super();
+			this.key = key;
+		}
+
+		public void run() {
+			for(int i=0;i<MAX_TASKS_PER_RUN;i++) {
+				Runnable task = tasks.poll();
+				if(task == null) {
+					if(retire()) {
+						return;
+					}
+					// A task has been enqueued concurrently
+					continue;
+				}
+				try {
+					task.run();
+				} catch (Throwable e) {
+					logger.error("Error while running task for key " + key, e);
+				}
+			}
+			if(!retire()) {
+				// Give the other keys a chance to run
+				executor.execute(this);
+			}
+		}
+
+		private boolean retire() {
+			final boolean[] retired = new boolean[1];
+			queues.computeIfPresent(key, new BiFunction<Object, KeyQueue, KeyQueue>() {
+				public KeyQueue apply(Object key, KeyQueue queue) {
+					if(queue == KeyQueue.this && tasks.isEmpty()) {
+						retired[0] = true;
+						return null;
+					}
+					return queue;
+				}
+			});
+			return retired[0];
+		}
+	}
+}
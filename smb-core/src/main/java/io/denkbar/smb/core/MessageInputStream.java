@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * {@link ObjectInputStream} resolving the {@link RegisteredContent} written by a 
+ * {@link MessageOutputStream} with the {@link ContentSerializer} registered for its ID.
+ */
+class MessageInputStream extends ObjectInputStream {
+
+	private final ContentSerializerRegistry registry;
+
+	public MessageInputStream(InputStream in, ContentSerializerRegistry registry) throws IOException {
+		super(in);
+		this.registry = registry;
+		enableResolveObject(true);
+	}
+
+	@Override
+	protected Object resolveObject(Object obj) throws IOException {
+		if(obj instanceof RegisteredContent) {
+			RegisteredContent registeredContent = (RegisteredContent) obj;
+			ContentSerializerRegistry.Registration registration = registry.get(registeredContent.getId());
+			if(registration==null) {
+				throw new StreamCorruptedException("Unknown content type ID " + registeredContent.getId());
+			}
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(registeredContent.getBytes()));
+			try {
+				return registration.serializer.read(in);
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unable to read the content of type ID " + registeredContent.getId(), e);
+			} finally {
+				in.close();
+			}
+		} else {
+			return obj;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link ObjectOutputStream} replacing the objects whose class is registered in a 
+ * {@link ContentSerializerRegistry} by a {@link RegisteredContent}. The other objects 
+ * are written unchanged.
+ */
+class MessageOutputStream extends ObjectOutputStream {
+
+	private final ContentSerializerRegistry registry;
+
+	public MessageOutputStream(OutputStream out, ContentSerializerRegistry registry) throws IOException {
+		super(out);
+		this.registry = registry;
+		enableReplaceObject(true);
+	}
+
+	@Override
+	protected Object replaceObject(Object obj) throws IOException {
+		ContentSerializerRegistry.Registration registration = obj!=null ? registry.get(obj.getClass()) : null;
+		if(registration!=null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			registration.serializer.write(obj, out);
+			out.close();
+			return new RegisteredContent(registration.id, bytes.toByteArray());
+		} else {
+			return obj;
+		}
+	}
+}
@@ -25,12 +25,17 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,26 +44,56 @@ public class MessageRouter extends Thread {
 	private final static Logger logger = LoggerFactory.getLogger(MessageRouter.class);
 	
 	private final static String ALL_MESSAGES_LISTENER = "##all##";
+	
+	private final static int SPOOL_DRAIN_BATCH_SIZE = 100;
+	
+	private final static int DEFAULT_STREAM_WINDOW = 32;
 
 	private final ConcurrentHashMap<Integer, SynchronMessageResponseHolder> register = new ConcurrentHashMap<Integer, SynchronMessageResponseHolder>();
 
 	private final ConcurrentHashMap<String, List<MessageListener>> permanentRegister = new ConcurrentHashMap<String, List<MessageListener>>();
 	
 	private final ConcurrentHashMap<String, SynchronMessageListener> synchronListenerRegister = new ConcurrentHashMap<String, SynchronMessageListener>();
+	
+	private final ConcurrentHashMap<String, StreamingMessageListener> streamingListenerRegister = new ConcurrentHashMap<String, StreamingMessageListener>();
+	
+	private final ConcurrentHashMap<Integer, StreamingResponse> streamRegister = new ConcurrentHashMap<Integer, StreamingResponse>();
+	
+	private final ConcurrentHashMap<Integer, CallSynchronListenerTask> activeCalls = new ConcurrentHashMap<Integer, CallSynchronListenerTask>();
+	
+	private final ConcurrentHashMap<Integer, CallStreamingListenerTask> activeStreams = new ConcurrentHashMap<Integer, CallStreamingListenerTask>();
 
 	private final AtomicInteger seq = new AtomicInteger();
+	
+	private final AtomicInteger traceSamplingCounter = new AtomicInteger();
+	
+	private volatile int traceSamplingInterval = 0;
+	
+	private volatile MessageTraceListener traceListener;
 
 	private ExecutorService executor = Executors.newFixedThreadPool(2);
+	
+	// Streaming listeners block in emit() until the caller requests more elements. They get their
+	// own threads so that slow consumers don't starve the listener pool
+	private final ExecutorService streamExecutor = Executors.newCachedThreadPool();
+	
+	private volatile KeyedExecutor keyedExecutor;
+	
+	private volatile MessageKeyExtractor keyExtractor;
 
 	private final Socket socket;
 	
+	private final ContentSerializerRegistry contentSerializerRegistry;
+	
 	private final ObjectOutputStream out;
 
 	private final ObjectInputStream in;
 	
 	private final MessageRouterStateListener stateListener;
 	
-	private boolean connected;
+	private volatile boolean connected;
+	
+	private OutboundSpool outboundSpool;
 
 	public MessageRouter(String host, Integer port) throws UnknownHostException, IOException {
 		this(null, new Socket(host, port));
@@ -68,12 +103,49 @@ public class MessageRouter extends Thread {
 		this(listener, new Socket(host, port));
 	}
 	
+	/**
+	 * Creates a router connected over TLS
+	 * 
+	 * @param sslContext the context used to create the TLS socket. Reusing the same context for 
+	 * successive connections to the same host and port allows the TLS session to be resumed
+	 */
+	public MessageRouter(MessageRouterStateListener listener, SSLContext sslContext, String host, Integer port) throws UnknownHostException, IOException {
+		this(listener, createSSLSocket(sslContext, host, port));
+	}
+	
+	/**
+	 * Creates a TLS socket and performs the handshake. The certificate of the peer has to match the given host.
+	 * Sockets created for the same host and port by the same context resume the cached TLS session.
+	 */
+	static Socket createSSLSocket(SSLContext sslContext, String host, int port) throws UnknownHostException, IOException {
+		SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(host, port);
+		try {
+			// The handshake and the stream headers are small back-to-back writes that Nagle's algorithm would delay
+			socket.setTcpNoDelay(true);
+			SSLParameters parameters = socket.getSSLParameters();
+			parameters.setEndpointIdentificationAlgorithm("HTTPS");
+			socket.setSSLParameters(parameters);
+			socket.startHandshake();
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException e1) {}
+			throw e;
+		}
+		return socket;
+	}
+	
 	public MessageRouter(MessageRouterStateListener listener, Socket socket) throws IOException {
+		this(listener, socket, new ContentSerializerRegistry());
+	}
+	
+	public MessageRouter(MessageRouterStateListener listener, Socket socket, ContentSerializerRegistry contentSerializerRegistry) throws IOException {
 		super();
 		this.socket = socket;
-		this.out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.contentSerializerRegistry = contentSerializerRegistry;
+		this.out = new MessageOutputStream(new BufferedOutputStream(socket.getOutputStream()), contentSerializerRegistry);
 		this.out.flush();
-		this.in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.in = new MessageInputStream(new BufferedInputStream(socket.getInputStream()), contentSerializerRegistry);
 		this.connected = true;
 		this.stateListener = listener;
 	}
@@ -85,6 +157,9 @@ public class MessageRouter extends Thread {
 				Message message = null;
 				try {
 					message = (Message) in.readObject();
+					if(message instanceof SynchronMessage && !(message instanceof SynchronMessageResponse)) {
+						stamp((SynchronMessage) message, MessageTrace.Stage.REQUEST_RECEIVED);
+					}
 				} catch (ClassNotFoundException e) {
 					handleException(e);
 				}
@@ -114,18 +189,78 @@ public class MessageRouter extends Thread {
 		try {
 			out.close();
 		} catch (IOException e1) {}
+		releasePendingRequests();
 		if(stateListener!=null) {
 			stateListener.messageRouterDisconnected(this);
 		}
 	}
+	
+	/**
+	 * Cancels the listeners whose responses cannot be sent anymore and fails the streams 
+	 * whose responses cannot be received anymore
+	 */
+	private void releasePendingRequests() {
+		for(CallSynchronListenerTask task:activeCalls.values()) {
+			task.cancel();
+		}
+		for(CallStreamingListenerTask task:activeStreams.values()) {
+			task.cancel();
+		}
+		for(Integer correlationID:streamRegister.keySet()) {
+			StreamingResponse stream = streamRegister.remove(correlationID);
+			if(stream!=null) {
+				stream.onDisconnect();
+			}
+		}
+	}
 
 	private void dispatch(Message m) {
 		if(m instanceof SynchronMessage) {
-			if(m instanceof SynchronMessageResponse) {
+			if(m instanceof StreamResponse) {
+				StreamResponse response = (StreamResponse) m;
+				StreamingResponse stream = response.isEndOfStream()?streamRegister.remove(response.getCorrelationID()):streamRegister.get(response.getCorrelationID());
+				if(stream!=null) {
+					stream.onResponse(response);
+				}
+			} else if(m instanceof CancelMessage) {
+				CancelMessage cancel = (CancelMessage) m;
+				CallSynchronListenerTask task = activeCalls.get(cancel.getCorrelationID());
+				if(task!=null) {
+					logger.debug("Cancelling call " + cancel.getType() + " with correlation ID " + cancel.getCorrelationID());
+					task.cancel();
+				}
+			} else if(m instanceof StreamDemand) {
+				StreamDemand demand = (StreamDemand) m;
+				CallStreamingListenerTask task = activeStreams.get(demand.getCorrelationID());
+				if(task!=null) {
+					if(demand.isCancel()) {
+						task.cancel();
+					} else {
+						task.addDemand(demand.getDemand());
+					}
+				}
+			} else if(m instanceof StreamRequest) {
+				StreamRequest request = (StreamRequest) m;
+				StreamingMessageListener listener = streamingListenerRegister.get(request.getType());
+				if(listener!=null) {
+					CallStreamingListenerTask task = new CallStreamingListenerTask(listener, request);
+					activeStreams.put(request.getCorrelationID(), task);
+					streamExecutor.submit(task);
+				} else {
+					send(new StreamResponse(request.getType(), null, request.getCorrelationID(), true, 
+							new RemoteException(new RuntimeException("No streaming listener registered for the message type " + request.getType()))));
+				}
+			} else if(m instanceof SynchronMessageResponse) {
 				SynchronMessageResponse response = (SynchronMessageResponse) m;
 				SynchronMessageResponseHolder responseHolder = register.remove(response.getCorrelationID());
 				if(responseHolder!=null) {
 					synchronized (responseHolder) {
+						if(responseHolder.trace!=null) {
+							responseHolder.trace.stamp(MessageTrace.Stage.RESPONSE_RECEIVED);
+							if(response.getTrace()!=null) {
+								responseHolder.trace.mergeRemoteStages(response.getTrace());
+							}
+						}
 						responseHolder.processed = true;
 						responseHolder.exception = ((SynchronMessageResponse) m).getException();
 						responseHolder.response = m.getContent();
@@ -137,7 +272,9 @@ public class MessageRouter extends Thread {
 				SynchronMessage message = (SynchronMessage) m;
 				SynchronMessageListener listener = synchronListenerRegister.get(message.getType());
 				if(listener!=null) {
-					executor.submit(new CallSynchronListenerTask(listener,message));
+					CallSynchronListenerTask task = new CallSynchronListenerTask(listener,message);
+					activeCalls.put(message.getCorrelationID(), task);
+					submit(message, task);
 				}
 			}
 		} else {			
@@ -149,11 +286,60 @@ public class MessageRouter extends Thread {
 	private void submitCallListenerTask(Message m, List<MessageListener> listeners) {
 		if(listeners!=null) {
 			for(MessageListener listener:listeners) {
-				executor.submit(new CallListenerTask(listener,m));
+				submit(m, new CallListenerTask(listener,m));
 			}
 		}
 	}
 	
+	private void submit(Message m, Runnable task) {
+		MessageKeyExtractor keyExtractor = this.keyExtractor;
+		if(keyExtractor!=null) {
+			keyedExecutor.execute(keyExtractor.getKey(m), task);
+		} else {
+			executor.submit(task);
+		}
+	}
+	
+	/**
+	 * Enables the ordered dispatch of the incoming messages: the listeners are called in order of reception 
+	 * for messages having the same key whereas messages of different keys are dispatched in parallel.
+	 * 
+	 * @param keyExtractor the extractor of the ordering key or null to disable ordered dispatch
+	 */
+	public synchronized void setMessageKeyExtractor(MessageKeyExtractor keyExtractor) {
+		if(keyExtractor!=null && keyedExecutor==null) {
+			keyedExecutor = new KeyedExecutor(executor);
+		}
+		this.keyExtractor = keyExtractor;
+	}
+	
+	/**
+	 * Enables the ordered dispatch of the incoming messages per message type
+	 * 
+	 * @see #setMessageKeyExtractor(MessageKeyExtractor)
+	 */
+	public void enableOrderedDispatchByType() {
+		setMessageKeyExtractor(new MessageKeyExtractor() {
+			public Object getKey(Message msg) {
+				return msg.getType();
+			}
+		});
+	}
+	
+	/**
+	 * Replaces the executor used to call the listeners. Has to be called before the router is started.
+	 * 
+	 * @param executor the executor to be used. The previous executor is shut down
+	 */
+	public synchronized void setExecutor(ExecutorService executor) {
+		ExecutorService previous = this.executor;
+		this.executor = executor;
+		if(keyedExecutor!=null) {
+			keyedExecutor = new KeyedExecutor(executor);
+		}
+		previous.shutdown();
+	}
+	
 	public void sendMessage(String command) throws IOException {
 		sendMessage(command, null);
 	}
@@ -164,45 +350,226 @@ public class MessageRouter extends Thread {
 
 	public void send(Message message) {
 		synchronized(out) {
+			// Synchronous messages aren't spooled as their correlation IDs are only valid for this router
+			boolean spoolable = outboundSpool!=null && !(message instanceof SynchronMessage);
+			if(spoolable && (!connected || !outboundSpool.isEmpty())) {
+				// Preserve the ordering with the messages already waiting in the spool
+				outboundSpool.append(message);
+				if(connected) {
+					drainOutboundSpool();
+				}
+				return;
+			}
 			try {
+				if(message instanceof SynchronMessage) {
+					stamp((SynchronMessage) message, message instanceof SynchronMessageResponse?MessageTrace.Stage.RESPONSE_SEND_LOCK_ACQUIRED:MessageTrace.Stage.REQUEST_SEND_LOCK_ACQUIRED);
+				}
 				out.writeObject(message);
 				out.reset();
 				out.flush();
+				if(message instanceof SynchronMessage && !(message instanceof SynchronMessageResponse)) {
+					stamp((SynchronMessage) message, MessageTrace.Stage.REQUEST_SENT);
+				}
 			} catch (IOException e) {
 				handleException(e);
+				if(spoolable) {
+					outboundSpool.append(message);
+				}
 			} catch (Exception e) {
 				
 				e.printStackTrace();
 			}
 		}
 	}
+	
+	/**
+	 * Sends the messages waiting in the outbound spool in batches, each batch being
+	 * flushed at once. Messages are removed from the spool only after a successful flush.
+	 */
+	public void drainOutboundSpool() {
+		if(outboundSpool==null) {
+			return;
+		}
+		synchronized(out) {
+			while(connected) {
+				OutboundSpool.Batch batch = outboundSpool.peek(SPOOL_DRAIN_BATCH_SIZE);
+				if(batch.getRecordCount()==0) {
+					break;
+				}
+				try {
+					for(Message message:batch.getMessages()) {
+						out.writeObject(message);
+						out.reset();
+					}
+					out.flush();
+				} catch (IOException e) {
+					handleException(e);
+					return;
+				}
+				outboundSpool.remove(batch.getRecordCount());
+			}
+		}
+	}
+	
+	public OutboundSpool getOutboundSpool() {
+		return outboundSpool;
+	}
+
+	/**
+	 * Sets the spool in which the asynchronous messages are written while this router is disconnected
+	 * 
+	 * @param outboundSpool the spool or null to drop the messages sent while disconnected
+	 */
+	public void setOutboundSpool(OutboundSpool outboundSpool) {
+		if(outboundSpool!=null) {
+			// Spooled messages are serialized in the same compact form as on the wire
+			outboundSpool.setContentSerializerRegistry(contentSerializerRegistry);
+		}
+		this.outboundSpool = outboundSpool;
+	}
 
 	public Object call(Message message, long timeout) throws Exception {
 		int correlationID = seq.incrementAndGet();
 		
 		SynchronMessageResponseHolder responseHholder = new SynchronMessageResponseHolder();
 		SynchronMessage synchronMessage = new SynchronMessage(message.getType(), message.getContent(), correlationID);
+		if(isSampledForTracing()) {
+			MessageTrace trace = new MessageTrace();
+			trace.stamp(MessageTrace.Stage.CALL);
+			synchronMessage.setTrace(trace);
+			responseHholder.trace = trace;
+		}
 		
 		register.put(correlationID, responseHholder);
 		send(synchronMessage);
 		
-		synchronized(responseHholder) {
-			if(!responseHholder.processed) {
-				responseHholder.wait(timeout);
+		boolean processed;
+		try {
+			synchronized(responseHholder) {
+				if(!responseHholder.processed) {
+					responseHholder.wait(timeout);
+				}
+				processed = responseHholder.processed;
 			}
+		} catch (InterruptedException e) {
+			cancel(synchronMessage);
+			reportTrace(synchronMessage, copyTrace(responseHholder));
+			throw e;
 		}
 		
-		if(responseHholder.processed) {
+		if(processed) {
+			reportTrace(synchronMessage, responseHholder.trace);
 			if(responseHholder.exception!=null) {
 				throw responseHholder.exception;
 			} else {
 				return responseHholder.response;				
 			}
 		} else {
+			cancel(synchronMessage);
+			// Report the trace of timed out calls too: the stages that haven't been reached are unknown.
+			// A response read before the cancellation may still be completing the trace, hence the copy
+			reportTrace(synchronMessage, copyTrace(responseHholder));
 			throw new TimeoutException("Timeout occurred while calling " + message.getType());
 		}
 
 	}
+	
+	private MessageTrace copyTrace(SynchronMessageResponseHolder responseHolder) {
+		// The reader thread updates the trace of a response holder under its lock
+		synchronized(responseHolder) {
+			return responseHolder.trace!=null ? responseHolder.trace.copy() : null;
+		}
+	}
+	
+	private void reportTrace(SynchronMessage message, MessageTrace trace) {
+		MessageTraceListener traceListener = this.traceListener;
+		if(trace!=null && traceListener!=null) {
+			try {
+				traceListener.onMessageTrace(message, trace);
+			} catch (Exception e) {
+				logger.error("Error while calling trace listener " + traceListener.getClass().getCanonicalName(), e);
+			}
+		}
+	}
+	
+	private boolean isSampledForTracing() {
+		int interval = traceSamplingInterval;
+		return interval > 0 && traceSamplingCounter.incrementAndGet() % interval == 0;
+	}
+	
+	private void stamp(SynchronMessage message, MessageTrace.Stage stage) {
+		MessageTrace trace = message.getTrace();
+		if(trace!=null) {
+			trace.stamp(stage);
+		}
+	}
+
+	/**
+	 * Enables the tracing of a sample of the calls. The stages of the sampled calls are timestamped on both 
+	 * sides and the resulting {@link MessageTrace} is passed to the trace listener once the response is received.
+	 * 
+	 * @param traceSamplingInterval trace one call out of traceSamplingInterval. 0 disables tracing
+	 */
+	public void setTraceSamplingInterval(int traceSamplingInterval) {
+		this.traceSamplingInterval = traceSamplingInterval;
+	}
+
+	public void setMessageTraceListener(MessageTraceListener traceListener) {
+		this.traceListener = traceListener;
+	}
+	
+	private void cancel(SynchronMessage message) {
+		if(register.remove(message.getCorrelationID())!=null) {
+			// Let the remote listener stop processing a request whose response won't be read
+			send(new CancelMessage(message.getType(), message.getCorrelationID()));
+		}
+	}
+
+	/**
+	 * Calls the {@link StreamingMessageListener} registered for the type of the message
+	 * 
+	 * @param message the request
+	 * @param timeout the maximum time in ms to wait for each element of the response
+	 * @return the stream of the partial results. It has to be closed if not consumed until its end
+	 */
+	public StreamingResponse stream(Message message, long timeout) {
+		return stream(message, timeout, DEFAULT_STREAM_WINDOW);
+	}
+
+	/**
+	 * @param window the maximum number of elements buffered on the caller side
+	 * @see #stream(Message, long)
+	 */
+	public StreamingResponse stream(Message message, long timeout, int window) {
+		int correlationID = seq.incrementAndGet();
+		StreamingResponse stream = new StreamingResponse(this, message.getType(), correlationID, window, timeout);
+		streamRegister.put(correlationID, stream);
+		send(new StreamRequest(message.getType(), message.getContent(), correlationID, window));
+		return stream;
+	}
+
+	void unregisterStream(int correlationID) {
+		streamRegister.remove(correlationID);
+	}
+
+	/**
+	 * Registers a compact serializer for the message contents of the given class. 
+	 * The peer has to register the same class with the same ID.
+	 * 
+	 * @see ContentSerializerRegistry
+	 */
+	public <T> void registerContentSerializer(Class<T> contentClass, int id, ContentSerializer<T> serializer) {
+		contentSerializerRegistry.register(contentClass, id, serializer);
+	}
+
+	/**
+	 * Registers the given content class with a {@link FieldContentSerializer}
+	 * 
+	 * @see #registerContentSerializer(Class, int, ContentSerializer)
+	 */
+	public <T> void registerContentClass(Class<T> contentClass, int id) {
+		contentSerializerRegistry.register(contentClass, id);
+	}
 
 	public synchronized void registerPermanentListener(String type, MessageListener listener) {
 		if(!permanentRegister.containsKey(type)) {
@@ -223,6 +590,19 @@ public class MessageRouter extends Thread {
 		}
 	}
 	
+	/**
+	 * Registers the listener of the streaming calls of the given type. Streaming listeners are called on 
+	 * dedicated threads, outside of the listener pool and of the ordered dispatch, as they block while 
+	 * the caller hasn't requested more elements.
+	 */
+	public synchronized void registerStreamingListener(String type, StreamingMessageListener listener) {
+		if(!streamingListenerRegister.containsKey(type)) {
+			streamingListenerRegister.put(type, listener);
+		} else {
+			throw new RuntimeException("Only one StreamingMessageListener can be registered. A message listener is already registered for the message type " + type);
+		}
+	}
+	
 	public synchronized void unregisterPermanentListener(String type, MessageListener listener) {
 		if(permanentRegister.containsKey(type)) {
 			permanentRegister.get(type).remove(listener);
@@ -239,7 +619,10 @@ public class MessageRouter extends Thread {
 		try {
 			socket.close();
 		} catch (IOException e) {}
+		connected = false;
+		releasePendingRequests();
 		executor.shutdownNow();
+		streamExecutor.shutdownNow();
 	}
 
 	private class CallListenerTask implements Runnable {
@@ -271,6 +654,10 @@ public class MessageRouter extends Thread {
 
 		private final SynchronMessage msg;
 
+		private final CancellationToken token = new CancellationToken();
+		
+		private Thread runner;
+
 		public CallSynchronListenerTask(SynchronMessageListener listener, SynchronMessage msg) {
 			super();
 			this.listener = listener;
@@ -278,24 +665,125 @@ public class MessageRouter extends Thread {
 		}
 
 		public void run() {
+			synchronized (this) {
+				if(token.isCancelled()) {
+					activeCalls.remove(msg.getCorrelationID());
+					logger.debug("Skipping cancelled call " + msg.getType());
+					return;
+				}
+				runner = Thread.currentThread();
+			}
 			Serializable reponse = null;
 			Exception exception = null;
+			CancellationToken.setCurrent(token);
+			stamp(msg, MessageTrace.Stage.LISTENER_START);
 			try {
 				System.out.println("Received message: "+ msg.getType());
 				reponse = listener.onSynchronMessage(msg);
 			} catch (Exception e) {
 				exception = e;
 			} finally {
-				RemoteException remoteException = null;
-				if(exception!=null) {
-					// Wrap exception to avoid ClassNotFound exception on the client side
-					remoteException = new RemoteException(exception);	
+				stamp(msg, MessageTrace.Stage.LISTENER_END);
+				CancellationToken.setCurrent(null);
+				synchronized (this) {
+					runner = null;
+					// Clear a cancellation interrupt so that it doesn't leak to the next task of this thread
+					Thread.interrupted();
+				}
+				activeCalls.remove(msg.getCorrelationID());
+				if(!token.isCancelled()) {
+					RemoteException remoteException = null;
+					if(exception!=null) {
+						// Wrap exception to avoid ClassNotFound exception on the client side
+						remoteException = new RemoteException(exception);	
+					}
+					SynchronMessageResponse response = new SynchronMessageResponse(msg.getType(), reponse, msg.getCorrelationID(), remoteException);
+					// Report the remote stages back to the caller
+					response.setTrace(msg.getTrace());
+					send(response);
+				}
+			}
+		}
+		
+		private synchronized void cancel() {
+			token.cancel();
+			if(runner!=null) {
+				runner.interrupt();
+			}
+		}
+
+	}
+
+	private class CallStreamingListenerTask implements Runnable, ResponseStream {
+
+		private final StreamingMessageListener listener;
+
+		private final StreamRequest msg;
+		
+		private int demand;
+		
+		private final CancellationToken token = new CancellationToken();
+
+		public CallStreamingListenerTask(StreamingMessageListener listener, StreamRequest msg) {
+			super();
+			this.listener = listener;
+			this.msg = msg;
+			this.demand = msg.getInitialDemand();
+		}
+
+		public void run() {
+			if(token.isCancelled()) {
+				activeStreams.remove(msg.getCorrelationID());
+				logger.debug("Skipping cancelled stream " + msg.getType());
+				return;
+			}
+			Exception exception = null;
+			CancellationToken.setCurrent(token);
+			try {
+				logger.debug("Received streaming message: "+ msg.getType());
+				listener.onStreamingMessage(msg, this);
+			} catch (Exception e) {
+				exception = e;
+			} finally {
+				CancellationToken.setCurrent(null);
+				activeStreams.remove(msg.getCorrelationID());
+				if(!isCancelled()) {
+					RemoteException remoteException = null;
+					if(exception!=null) {
+						// Wrap exception to avoid ClassNotFound exception on the client side
+						remoteException = new RemoteException(exception);	
+					}
+					send(new StreamResponse(msg.getType(), null, msg.getCorrelationID(), true, remoteException));
 				}
-				SynchronMessageResponse response = new SynchronMessageResponse(msg.getType(), reponse, msg.getCorrelationID(), remoteException);
-				send(response);
 			}
 		}
 
+		public void emit(Serializable element) throws InterruptedException {
+			synchronized (this) {
+				while(demand <= 0 && !token.isCancelled()) {
+					wait();
+				}
+				if(token.isCancelled()) {
+					throw new CancellationException("The stream " + msg.getType() + " has been cancelled by the caller");
+				}
+				demand--;
+			}
+			send(new StreamResponse(msg.getType(), element, msg.getCorrelationID(), false, null));
+		}
+
+		public boolean isCancelled() {
+			return token.isCancelled();
+		}
+
+		private synchronized void addDemand(int count) {
+			demand += count;
+			notifyAll();
+		}
+
+		private synchronized void cancel() {
+			token.cancel();
+			notifyAll();
+		}
 	}
 
 	private class SynchronMessageResponseHolder {
@@ -305,6 +793,8 @@ public class MessageRouter extends Thread {
 		public Object response;
 		
 		public Exception exception;
+		
+		public MessageTrace trace;
 
 	}
 	
@@ -312,5 +802,12 @@ public class MessageRouter extends Thread {
 		return connected;
 	}
 
+	/**
+	 * @return the underlying socket. For TLS connections, this is an {@link SSLSocket} giving access to the TLS session
+	 */
+	public Socket getSocket() {
+		return socket;
+	}
+
 
 }
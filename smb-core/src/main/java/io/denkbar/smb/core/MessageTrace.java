@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.io.Serializable;
+
+/**
+ * Timestamps ({@link System#nanoTime()}) of a sampled call at each stage of its
+ * processing. The caller stages and the remote stages are measured on different
+ * clocks, durations are therefore only computed between stages of the same side.
+ * The network time is what remains of the total time once the wait for the local
+ * output stream and the remote processing time are deducted. Besides the transfer
+ * of the request and the response, it includes the serialization and deserialization
+ * of both messages, which overlap with their transfer.
+ * 
+ * The traces of calls which timed out or were interrupted are reported as well.
+ * The stages which haven't been reached have a timestamp of 0.
+ */
+public class MessageTrace implements Serializable {
+
+	private static final long serialVersionUID = -2104547325574287318L;
+
+	public enum Stage {
+		/** Caller: the call has been issued */
+		CALL,
+		/** Caller: the lock on the output stream has been acquired */
+		REQUEST_SEND_LOCK_ACQUIRED,
+		/** Caller: the request has been serialized and flushed */
+		REQUEST_SENT,
+		/** Remote: the request has been read */
+		REQUEST_RECEIVED,
+		/** Remote: the listener has been called by the executor */
+		LISTENER_START,
+		/** Remote: the listener returned */
+		LISTENER_END,
+		/** Remote: the lock on the output stream has been acquired for the response */
+		RESPONSE_SEND_LOCK_ACQUIRED,
+		/** Caller: the response has been read */
+		RESPONSE_RECEIVED
+	}
+
+	private final long[] stamps = new long[Stage.values().length];
+
+	void stamp(Stage stage) {
+		stamps[stage.ordinal()] = System.nanoTime();
+	}
+
+	void mergeRemoteStages(MessageTrace remoteTrace) {
+		for(Stage stage:new Stage[] {Stage.REQUEST_RECEIVED, Stage.LISTENER_START, Stage.LISTENER_END, Stage.RESPONSE_SEND_LOCK_ACQUIRED}) {
+			stamps[stage.ordinal()] = remoteTrace.stamps[stage.ordinal()];
+		}
+	}
+
+	MessageTrace copy() {
+		MessageTrace copy = new MessageTrace();
+		System.arraycopy(stamps, 0, copy.stamps, 0, stamps.length);
+		return copy;
+	}
+
+	/**
+	 * @return the timestamp of the given stage or 0 if the stage hasn't been reached
+	 */
+	public long getTimestamp(Stage stage) {
+		return stamps[stage.ordinal()];
+	}
+
+	private long getDuration(Stage from, Stage to) {
+		long start = getTimestamp(from);
+		long end = getTimestamp(to);
+		return start!=0 && end!=0 ? end - start : -1;
+	}
+
+	/**
+	 * @return the time in ns spent waiting for the output stream of the caller or -1 if unknown
+	 */
+	public long getSendLockWaitTime() {
+		return getDuration(Stage.CALL, Stage.REQUEST_SEND_LOCK_ACQUIRED);
+	}
+
+	/**
+	 * @return the time in ns spent serializing and writing the request or -1 if unknown. It overlaps with the network time
+	 */
+	public long getSerializationTime() {
+		return getDuration(Stage.REQUEST_SEND_LOCK_ACQUIRED, Stage.REQUEST_SENT);
+	}
+
+	/**
+	 * @return the time in ns the request waited in the queue of the remote executor or -1 if unknown
+	 */
+	public long getRemoteQueueTime() {
+		return getDuration(Stage.REQUEST_RECEIVED, Stage.LISTENER_START);
+	}
+
+	/**
+	 * @return the time in ns spent in the remote listener or -1 if unknown
+	 */
+	public long getListenerTime() {
+		return getDuration(Stage.LISTENER_START, Stage.LISTENER_END);
+	}
+
+	/**
+	 * @return the time in ns spent waiting for the output stream of the remote side or -1 if unknown
+	 */
+	public long getRemoteSendLockWaitTime() {
+		return getDuration(Stage.LISTENER_END, Stage.RESPONSE_SEND_LOCK_ACQUIRED);
+	}
+
+	/**
+	 * @return the time in ns between the call and the reception of its response or -1 if unknown
+	 */
+	public long getTotalTime() {
+		return getDuration(Stage.CALL, Stage.RESPONSE_RECEIVED);
+	}
+
+	/**
+	 * @return the time in ns spent serializing, transferring and deserializing the request and the response or -1 if unknown
+	 */
+	public long getNetworkTime() {
+		long total = getTotalTime();
+		long local = getSendLockWaitTime();
+		long remote = getDuration(Stage.REQUEST_RECEIVED, Stage.RESPONSE_SEND_LOCK_ACQUIRED);
+		return total>=0 && local>=0 && remote>=0 ? total - local - remote : -1;
+	}
+
+	@Override
+	public String toString() {
+		return "total=" + micros(getTotalTime()) + ", sendLockWait=" + micros(getSendLockWaitTime()) + ", serialization=" + micros(getSerializationTime()) 
+				+ ", network=" + micros(getNetworkTime()) + ", remoteQueue=" + micros(getRemoteQueueTime()) + ", listener=" + micros(getListenerTime()) 
+				+ ", remoteSendLockWait=" + micros(getRemoteSendLockWaitTime());
+	}
+
+	private static String micros(long nanos) {
+		return nanos>=0 ? (nanos / 1000) + "us" : "n/a";
+	}
+}
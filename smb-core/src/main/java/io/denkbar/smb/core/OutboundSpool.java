@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk-backed queue of outbound {@link Message}s used to bridge the periods
+ * during which a {@link MessageRouter} is disconnected.
+ * 
+ * The spool is an append-only log of memory-mapped segment files. Each segment
+ * starts with the offset of its next unread record followed by length-prefixed
+ * serialized messages. Segments are deleted once fully drained and the oldest
+ * segments are evicted when the spool exceeds its maximum size.
+ */
+public class OutboundSpool implements Closeable {
+
+	private final static Logger logger = LoggerFactory.getLogger(OutboundSpool.class);
+
+	private final static String SEGMENT_SUFFIX = ".seg";
+
+	private final static int HEADER_SIZE = 4;
+
+	private final static int RECORD_HEADER_SIZE = 4;
+
+	private final File directory;
+
+	private final int segmentSize;
+
+	private final int maxSegments;
+
+	private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+	private long nextSegmentId;
+
+	private boolean closed = false;
+	
+	private volatile ContentSerializerRegistry contentSerializerRegistry = new ContentSerializerRegistry();
+
+	/**
+	 * @param directory the directory holding the segment files. Segments left by a previous
+	 * spool in this directory are recovered and drained first
+	 * @param segmentSize the size in bytes of each segment file
+	 * @param maxBytes the maximum disk usage of the spool. When reached, the oldest segment is evicted
+	 * @throws IOException
+	 */
+	public OutboundSpool(File directory, int segmentSize, long maxBytes) throws IOException {
+		super();
+		if(segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+		}
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create spool directory " + directory.getAbsolutePath());
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = (int) Math.max(2, maxBytes / segmentSize);
+		recoverSegments();
+	}
+
+	private void recoverSegments() throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		List<Segment> recovered = new ArrayList<Segment>();
+		if(files!=null) {
+			for(File file:files) {
+				long id;
+				try {
+					id = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				recovered.add(new Segment(id, file, (int) Math.max(file.length(), segmentSize)));
+			}
+		}
+		Collections.sort(recovered, new Comparator<Segment>() {
+			public int compare(Segment o1, Segment o2) {
+				return Long.compare(o1.id, o2.id);
+			}
+		});
+		for(Segment segment:recovered) {
+			segment.recoverWritePosition();
+			segments.add(segment);
+			nextSegmentId = segment.id + 1;
+		}
+		if(!segments.isEmpty()) {
+			logger.info("Recovered " + segments.size() + " spool segment(s) from " + directory.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Appends a message at the tail of the spool
+	 * 
+	 * @param message the message to be spooled. Its content has to be serializable
+	 * @return true if the message has been spooled, false if it has been dropped
+	 */
+	public synchronized boolean append(Message message) {
+		if(closed) {
+			logger.warn("Spool closed. Dropping message " + message.getType());
+			return false;
+		}
+		byte[] record;
+		try {
+			record = serialize(message);
+		} catch (IOException e) {
+			logger.error("Error while serializing message " + message.getType() + ". Dropping it.", e);
+			return false;
+		}
+		if(HEADER_SIZE + RECORD_HEADER_SIZE + record.length > segmentSize) {
+			logger.warn("Message " + message.getType() + " of " + record.length + " bytes exceeds the spool segment size. Dropping it.");
+			return false;
+		}
+		try {
+			Segment tail = segments.peekLast();
+			if(tail == null || !tail.hasRemaining(record.length)) {
+				tail = rollSegment();
+			}
+			tail.write(record);
+			return true;
+		} catch (IOException e) {
+			logger.error("Error while spooling message " + message.getType() + ". Dropping it.", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the records at the head of the spool without removing them. Records 
+	 * which cannot be deserialized are skipped but counted in the returned batch 
+	 * so that they are removed along with the messages.
+	 * 
+	 * @param max the maximum number of records to be read
+	 * @return the batch of messages in spool order
+	 */
+	public synchronized Batch peek(int max) {
+		List<Message> messages = new ArrayList<Message>();
+		int recordCount = 0;
+		for(Segment segment:segments) {
+			int position = segment.getReadPosition();
+			while(recordCount < max && position < segment.writePosition) {
+				int length = segment.buffer.getInt(position);
+				byte[] record = new byte[length];
+				segment.read(position + RECORD_HEADER_SIZE, record);
+				try {
+					messages.add(deserialize(record));
+				} catch (Exception e) {
+					logger.error("Unable to read spooled message from " + segment.file.getName() + ". Skipping it.", e);
+				}
+				recordCount++;
+				position += RECORD_HEADER_SIZE + length;
+			}
+			if(recordCount >= max) {
+				break;
+			}
+		}
+		return new Batch(messages, recordCount);
+	}
+
+	/**
+	 * Removes records from the head of the spool. Segments which have been fully
+	 * drained are deleted.
+	 * 
+	 * @param count the number of records to be removed
+	 */
+	public synchronized void remove(int count) {
+		int remaining = count;
+		while(remaining > 0 && !segments.isEmpty()) {
+			Segment head = segments.peekFirst();
+			int position = head.getReadPosition();
+			while(remaining > 0 && position < head.writePosition) {
+				position += RECORD_HEADER_SIZE + head.buffer.getInt(position);
+				remaining--;
+			}
+			head.setReadPosition(position);
+			if(position >= head.writePosition) {
+				if(segments.size() > 1) {
+					segments.removeFirst();
+					head.delete();
+				} else {
+					break;
+				}
+			}
+		}
+	}
+
+	public synchronized boolean isEmpty() {
+		for(Segment segment:segments) {
+			if(segment.getReadPosition() < segment.writePosition) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Segment rollSegment() throws IOException {
+		Segment segment = new Segment(nextSegmentId++, new File(directory, String.format("%020d", nextSegmentId - 1) + SEGMENT_SUFFIX), segmentSize);
+		segments.add(segment);
+		while(segments.size() > maxSegments) {
+			Segment evicted = segments.removeFirst();
+			logger.warn("Spool size limit reached. Evicting segment " + evicted.file.getName() + " with undelivered messages.");
+			evicted.delete();
+		}
+		return segment;
+	}
+
+	private byte[] serialize(Message message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new MessageOutputStream(bytes, contentSerializerRegistry);
+		try {
+			out.writeObject(message);
+		} finally {
+			out.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private Message deserialize(byte[] record) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new MessageInputStream(new ByteArrayInputStream(record), contentSerializerRegistry);
+		try {
+			return (Message) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Sets the registry used to serialize the content of the spooled messages. As spooled records
+	 * survive restarts, the registrations have to remain the same across restarts.
+	 * 
+	 * @param contentSerializerRegistry the registry of the router using this spool
+	 */
+	public void setContentSerializerRegistry(ContentSerializerRegistry contentSerializerRegistry) {
+		this.contentSerializerRegistry = contentSerializerRegistry;
+	}
+
+	@Override
+	public synchronized void close() {
+		for(Segment segment:segments) {
+			segment.buffer.force();
+		}
+		segments.clear();
+		closed = true;
+	}
+
+	public static class Batch {
+
+		private final List<Message> messages;
+
+		private final int recordCount;
+
+		private Batch(List<Message> messages, int recordCount) {
+			super();
+			this.messages = messages;
+			this.recordCount = recordCount;
+		}
+
+		/**
+		 * @return the messages which could be read
+		 */
+		public List<Message> getMessages() {
+			return messages;
+		}
+
+		/**
+		 * @return the number of records read including the unreadable ones. This is the count
+		 * to be passed to {@link OutboundSpool#remove(int)}
+		 */
+		public int getRecordCount() {
+			return recordCount;
+		}
+	}
+
+	private class Segment {
+
+		private final long id;
+
+		private final File file;
+
+		private final MappedByteBuffer buffer;
+
+		private int writePosition = HEADER_SIZE;
+
+		public Segment(long id, File file, int size) throws IOException {
+			super();
+			this.id = id;
+			this.file = file;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} finally {
+				raf.close();
+			}
+			if(getReadPosition() < HEADER_SIZE) {
+				setReadPosition(HEADER_SIZE);
+			}
+		}
+
+		private void recoverWritePosition() {
+			int position = HEADER_SIZE;
+			while(position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+				int length = buffer.getInt(position);
+				if(length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+					break;
+				}
+				position += RECORD_HEADER_SIZE + length;
+			}
+			writePosition = position;
+		}
+
+		private boolean hasRemaining(int recordLength) {
+			return writePosition + RECORD_HEADER_SIZE + recordLength <= buffer.capacity();
+		}
+
+		private void write(byte[] record) {
+			// Write the payload before its length so that a partially written record is never recovered
+			ByteBuffer view = buffer.duplicate();
+			((Buffer) view).position(writePosition + RECORD_HEADER_SIZE);
+			view.put(record);
+			buffer.putInt(writePosition, record.length);
+			writePosition += RECORD_HEADER_SIZE + record.length;
+		}
+
+		private void read(int position, byte[] record) {
+			ByteBuffer view = buffer.duplicate();
+			((Buffer) view).position(position);
+			view.get(record);
+		}
+
+		private int getReadPosition() {
+			return buffer.getInt(0);
+		}
+
+		private void setReadPosition(int position) {
+			buffer.putInt(0, position);
+		}
+
+		private void delete() {
+			if(!file.delete()) {
+				logger.warn("Unable to delete spool segment " + file.getAbsolutePath());
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Replaces the content whose class is registered in a {@link ContentSerializerRegistry} 
+ * in the object stream. It carries the ID of the content class and the bytes written by 
+ * its {@link ContentSerializer}.
+ * 
+ * @see MessageOutputStream
+ * @see MessageInputStream
+ */
+class RegisteredContent implements Externalizable {
+
+	private int id;
+
+	private byte[] bytes;
+
+	public RegisteredContent() {
+		super();
+	}
+
+	public RegisteredContent(int id, byte[] bytes) {
+		super();
+		this.id = id;
+		this.bytes = bytes;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeInt(id);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		id = in.readInt();
+		bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+	}
+}
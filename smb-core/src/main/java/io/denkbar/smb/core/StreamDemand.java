@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+public class StreamDemand extends SynchronMessage {
+
+	private static final long serialVersionUID = 8402866170624683310L;
+	
+	private final int demand;
+	
+	private final boolean cancel;
+
+	public StreamDemand(String type, int correlationID, int demand, boolean cancel) {
+		super(type, null, correlationID);
+		this.demand = demand;
+		this.cancel = cancel;
+	}
+
+	public int getDemand() {
+		return demand;
+	}
+
+	public boolean isCancel() {
+		return cancel;
+	}
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+public class StreamRequest extends SynchronMessage {
+
+	private static final long serialVersionUID = -3172408873630415671L;
+	
+	private final int initialDemand;
+
+	public StreamRequest(String type, Object content, int correlationID, int initialDemand) {
+		super(type, content, correlationID);
+		this.initialDemand = initialDemand;
+	}
+
+	public int getInitialDemand() {
+		return initialDemand;
+	}
+}
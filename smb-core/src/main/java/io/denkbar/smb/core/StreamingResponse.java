@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * (C) Copyright 2016 Jérôme Comte and Dorian Cransac
+ *  
+ *  This file is part of djigger
+ *  
+ *  djigger is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  djigger is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with djigger.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package io.denkbar.smb.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Caller side of a streaming call. The elements are requested from the remote
+ * listener in windows so that at most one window of elements is buffered.
+ * 
+ * {@link #hasNext()} blocks until the next element is received, the stream is
+ * ended or the timeout elapses. Failures are thrown as {@link RuntimeException}s
+ * wrapping the {@link TimeoutException}, the {@link RemoteException} or the
+ * {@link IOException} of a lost connection. On timeout the stream is closed and
+ * the remote listener cancelled.
+ */
+public class StreamingResponse implements Iterator<Object>, Closeable {
+
+	private final MessageRouter router;
+
+	private final String type;
+
+	private final int correlationID;
+
+	private final int window;
+
+	private final long timeout;
+
+	private final LinkedList<Object> buffer = new LinkedList<Object>();
+
+	private boolean ended = false;
+
+	private boolean closed = false;
+
+	private Exception exception;
+
+	private int consumedSinceLastDemand = 0;
+
+	StreamingResponse(MessageRouter router, String type, int correlationID, int window, long timeout) {
+		super();
+		this.router = router;
+		this.type = type;
+		this.correlationID = correlationID;
+		this.window = window;
+		this.timeout = timeout;
+	}
+
+	synchronized void onResponse(StreamResponse response) {
+		if(response.isEndOfStream()) {
+			ended = true;
+			exception = response.getException();
+		} else {
+			buffer.add(response.getContent());
+		}
+		notifyAll();
+	}
+
+	synchronized void onDisconnect() {
+		if(!ended) {
+			ended = true;
+			exception = new IOException("Connection lost while waiting for the next element of " + type);
+			notifyAll();
+		}
+	}
+
+	public boolean hasNext() {
+		try {
+			return awaitNext();
+		} catch (TimeoutException e) {
+			// Nobody is waiting for the remaining elements anymore
+			close();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private synchronized boolean awaitNext() throws TimeoutException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(buffer.isEmpty() && !ended && !closed) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) {
+				throw new TimeoutException("Timeout occurred while waiting for the next element of " + type);
+			}
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+		if(!buffer.isEmpty()) {
+			return true;
+		}
+		if(exception!=null && !closed) {
+			throw new RuntimeException(exception);
+		}
+		return false;
+	}
+
+	public Object next() {
+		Object element;
+		int demand = 0;
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		synchronized (this) {
+			if(buffer.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			element = buffer.removeFirst();
+			consumedSinceLastDemand++;
+			if(!ended && consumedSinceLastDemand >= Math.max(1, window/2)) {
+				demand = consumedSinceLastDemand;
+				consumedSinceLastDemand = 0;
+			}
+		}
+		if(demand > 0) {
+			router.send(new StreamDemand(type, correlationID, demand, false));
+		}
+		return element;
+	}
+
+	/**
+	 * Closes this stream. If the stream hasn't ended yet, the remote listener is cancelled.
+	 */
+	public void close() {
+		boolean cancel;
+		synchronized (this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			cancel = !ended;
+			buffer.clear();
+			notifyAll();
+		}
+		router.unregisterStream(correlationID);
+		if(cancel) {
+			router.send(new StreamDemand(type, correlationID, 0, true));
+		}
+	}
+}
@@ -25,6 +25,8 @@ public class SynchronMessage extends Message {
 	private static final long serialVersionUID = 2601875180544936350L;
 	
 	private final int correlationID;
+	
+	private MessageTrace trace;
 
 	public SynchronMessage(String type, Object content, int correlationID) {
 		super(type, content);
@@ -34,4 +36,15 @@ public class SynchronMessage extends Message {
 	public int getCorrelationID() {
 		return correlationID;
 	}
+
+	/**
+	 * @return the trace of this message if it has been sampled for tracing, null otherwise
+	 */
+	public MessageTrace getTrace() {
+		return trace;
+	}
+
+	public void setTrace(MessageTrace trace) {
+		this.trace = trace;
+	}
 }
@@ -0,0 +1,260 @@
+package io.denkbar.smb.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClientTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testOrderedDispatchSettingsAppliedOnConnect() throws Exception {
+		Client server = new Client();
+		// Settings made before the connection are applied to the router created on connection
+		server.setDispatchThreads(4);
+		server.setMessageKeyExtractor(new MessageKeyExtractor() {
+			public Object getKey(Message msg) {
+				return msg.getType();
+			}
+		});
+		Client.ConnectionFuture future = server.prepareForIncommingConnection();
+		Client client = new Client("localhost", future.getLocalPort());
+		future.waitForConnection(10000);
+		
+		final int count = 1000;
+		final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch latch = new CountDownLatch(count);
+		server.registerPermanentListener("ordered", new MessageListener() {
+			public void onMessage(Message msg) {
+				received.add(msg.getIntegerContent());
+				latch.countDown();
+			}
+		});
+		server.start();
+		try {
+			for(int i=0;i<count;i++) {
+				client.sendMessage("ordered", i);
+			}
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+			for(int i=0;i<count;i++) {
+				assertEquals(i, (int) received.get(i));
+			}
+		} finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void testOutboundSpoolDrainedOnReconnect() throws Exception {
+		Client firstServer = new Client();
+		Client.ConnectionFuture firstFuture = firstServer.prepareForIncommingConnection();
+		
+		Client client = new Client();
+		client.setOutboundSpool(new OutboundSpool(folder.newFolder(), 1024, 1024*1024));
+		client.connect("localhost", firstFuture.getLocalPort());
+		firstFuture.waitForConnection(10000);
+		firstServer.start();
+		client.start();
+		
+		Client secondServer = new Client();
+		try {
+			firstServer.close();
+			long deadline = System.currentTimeMillis() + 10000;
+			while(client.isAlive() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertFalse(client.isAlive());
+			
+			final int count = 20;
+			for(int i=0;i<count;i++) {
+				client.sendMessage("spooled", i);
+			}
+			assertFalse(client.getOutboundSpool().isEmpty());
+			
+			secondServer.setMessageKeyExtractor(new MessageKeyExtractor() {
+				public Object getKey(Message msg) {
+					return msg.getType();
+				}
+			});
+			final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+			final CountDownLatch latch = new CountDownLatch(count);
+			Client.ConnectionFuture secondFuture = secondServer.prepareForIncommingConnection();
+			client.connect("localhost", secondFuture.getLocalPort());
+			secondFuture.waitForConnection(10000);
+			secondServer.registerPermanentListener("spooled", new MessageListener() {
+				public void onMessage(Message msg) {
+					received.add(msg.getIntegerContent());
+					latch.countDown();
+				}
+			});
+			secondServer.start();
+			client.start();
+			
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+			for(int i=0;i<count;i++) {
+				assertEquals(i, (int) received.get(i));
+			}
+			assertTrue(client.getOutboundSpool().isEmpty());
+		} finally {
+			client.close();
+			if(secondServer.getMessageRouter()!=null) {
+				secondServer.close();
+			}
+		}
+	}
+
+	@Test
+	public void testTracingSettingsAppliedOnConnect() throws Exception {
+		Client server = new Client();
+		Client.ConnectionFuture future = server.prepareForIncommingConnection();
+		
+		Client client = new Client();
+		// Settings made before the connection are applied to the router created on connection
+		client.setTraceSamplingInterval(1);
+		final List<MessageTrace> traces = new CopyOnWriteArrayList<MessageTrace>();
+		client.setMessageTraceListener(new MessageTraceListener() {
+			public void onMessageTrace(SynchronMessage message, MessageTrace trace) {
+				traces.add(trace);
+			}
+		});
+		client.connect("localhost", future.getLocalPort());
+		future.waitForConnection(10000);
+		server.registerSynchronListener("echo", new SynchronMessageListener() {
+			public Serializable onSynchronMessage(Message msg) throws Exception {
+				return msg.getStringContent();
+			}
+		});
+		server.start();
+		client.start();
+		try {
+			assertEquals("hello", client.call("echo", "hello", 10000));
+			assertEquals(1, traces.size());
+		} finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void testTls() throws Exception {
+		SSLContext sslContext = createSSLContext();
+		
+		Client server = new Client();
+		server.setSSLContext(sslContext);
+		Client.ConnectionFuture future = server.prepareForIncommingConnection();
+		
+		Client client = new Client(sslContext, "localhost", future.getLocalPort());
+		future.waitForConnection(10000);
+		server.registerSynchronListener("echo", new SynchronMessageListener() {
+			public Serializable onSynchronMessage(Message msg) throws Exception {
+				return msg.getStringContent();
+			}
+		});
+		server.start();
+		try {
+			assertEquals("hello", client.call("echo", "hello", 10000));
+		} finally {
+			client.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void testTlsHostnameMismatch() throws Exception {
+		SSLContext sslContext = createSSLContext();
+		
+		Client server = new Client();
+		server.setSSLContext(sslContext);
+		Client.ConnectionFuture future = server.prepareForIncommingConnection();
+		
+		// The test certificate is only valid for localhost
+		try {
+			new Client(sslContext, "127.0.0.1", future.getLocalPort());
+			fail("The handshake should have failed");
+		} catch (SSLHandshakeException e) {
+		}
+	}
+
+	@Test
+	public void testTlsSessionResumption() throws Exception {
+		SSLContext sslContext = createSSLContext();
+		final SSLServerSocket serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(0);
+		final List<MessageRouter> servers = new CopyOnWriteArrayList<MessageRouter>();
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while(true) {
+						MessageRouter server = new MessageRouter(null, serverSocket.accept());
+						servers.add(server);
+						server.start();
+					}
+				} catch (IOException e) {
+				}
+			}
+		});
+		acceptor.start();
+		
+		Client client = new Client(sslContext, "localhost", serverSocket.getLocalPort());
+		try {
+			SSLSession firstSession = ((SSLSocket) client.getMessageRouter().getSocket()).getSession();
+			client.close();
+			Thread.sleep(10);
+			
+			client.connect("localhost", serverSocket.getLocalPort());
+			client.start();
+			SSLSession secondSession = ((SSLSocket) client.getMessageRouter().getSocket()).getSession();
+			// A resumed session keeps the creation time of the session it has been resumed from
+			assertEquals(firstSession.getCreationTime(), secondSession.getCreationTime());
+		} finally {
+			client.close();
+			serverSocket.close();
+			for(MessageRouter server:servers) {
+				server.disconnect();
+			}
+		}
+	}
+
+	static SSLContext createSSLContext() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		InputStream in = ClientTest.class.getClassLoader().getResourceAsStream("test-keystore.jks");
+		try {
+			keyStore.load(in, "changeit".toCharArray());
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, "changeit".toCharArray());
+		TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagerFactory.init(keyStore);
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+		return sslContext;
+	}
+}
@@ -0,0 +1,133 @@
+package io.denkbar.smb.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+
+import org.junit.Test;
+
+public class ContentSerializerRegistryTest {
+
+	@Test
+	public void testFieldContentSerializer() throws Exception {
+		ContentSerializerRegistry registry = new ContentSerializerRegistry();
+		registry.register(Sample.class, 1);
+		
+		Message message = new Message("sample", new Sample(42, 1234567890123L, "name"));
+		byte[] registered = serialize(message, registry);
+		byte[] unregistered = serialize(message, new ContentSerializerRegistry());
+		assertTrue(registered.length < unregistered.length);
+		
+		Sample sample = (Sample) deserialize(registered, registry).getContent();
+		assertEquals(42, sample.count);
+		assertEquals(1234567890123L, sample.timestamp);
+		assertEquals("name", sample.name);
+	}
+
+	@Test
+	public void testCustomSerializer() throws Exception {
+		ContentSerializerRegistry registry = new ContentSerializerRegistry();
+		registry.register(Sample.class, 2, new ContentSerializer<Sample>() {
+			public void write(Sample content, ObjectOutput out) throws IOException {
+				out.writeInt(content.count);
+			}
+
+			public Sample read(ObjectInput in) throws IOException {
+				return new Sample(in.readInt(), 0, null);
+			}
+		});
+		
+		Message message = new SynchronMessage("sample", new Sample(7, 1, "ignored"), 3);
+		SynchronMessage result = (SynchronMessage) deserialize(serialize(message, registry), registry);
+		assertEquals(3, result.getCorrelationID());
+		assertEquals(7, ((Sample) result.getContent()).count);
+	}
+
+	@Test
+	public void testFallback() throws Exception {
+		ContentSerializerRegistry registry = new ContentSerializerRegistry();
+		registry.register(Sample.class, 1);
+		Message message = deserialize(serialize(new Message("text", "content"), registry), registry);
+		assertEquals("content", message.getStringContent());
+	}
+
+	@Test
+	public void testUnregisteredContentReadableWithoutRegistry() throws Exception {
+		ContentSerializerRegistry registry = new ContentSerializerRegistry();
+		registry.register(Sample.class, 1);
+		
+		Message message = new SynchronMessage("text", "content", 5);
+		byte[] bytes = serialize(message, registry);
+		
+		ByteArrayOutputStream plainBytes = new ByteArrayOutputStream();
+		ObjectOutputStream plainOut = new ObjectOutputStream(plainBytes);
+		plainOut.writeObject(message);
+		plainOut.close();
+		assertArrayEquals(plainBytes.toByteArray(), bytes);
+		
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			SynchronMessage result = (SynchronMessage) in.readObject();
+			assertEquals(5, result.getCorrelationID());
+			assertEquals("content", result.getStringContent());
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void testUnknownId() throws Exception {
+		ContentSerializerRegistry registry = new ContentSerializerRegistry();
+		registry.register(Sample.class, 1);
+		deserialize(serialize(new Message("sample", new Sample()), registry), new ContentSerializerRegistry());
+	}
+
+	private byte[] serialize(Message message, ContentSerializerRegistry registry) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MessageOutputStream out = new MessageOutputStream(bytes, registry);
+		out.writeObject(message);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private Message deserialize(byte[] bytes, ContentSerializerRegistry registry) throws IOException, ClassNotFoundException {
+		MessageInputStream in = new MessageInputStream(new ByteArrayInputStream(bytes), registry);
+		try {
+			return (Message) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	public static class Sample implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private int count;
+
+		private long timestamp;
+
+		private String name;
+
+		private Sample() {
+			super();
+		}
+
+		public Sample(int count, long timestamp, String name) {
+			super();
+			this.count = count;
+			this.timestamp = timestamp;
+			this.name = name;
+		}
+	}
+}
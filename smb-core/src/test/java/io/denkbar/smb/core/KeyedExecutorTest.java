@@ -0,0 +1,133 @@
+package io.denkbar.smb.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class KeyedExecutorTest {
+
+	@Test
+	public void testOrderPerKey() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		KeyedExecutor keyedExecutor = new KeyedExecutor(executor);
+		
+		int keys = 8;
+		int tasksPerKey = 1000;
+		final List<List<Integer>> results = new ArrayList<List<Integer>>();
+		for(int k=0;k<keys;k++) {
+			results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+		final CountDownLatch latch = new CountDownLatch(keys*tasksPerKey);
+		for(int i=0;i<tasksPerKey;i++) {
+			for(int k=0;k<keys;k++) {
+				final int key = k;
+				final int value = i;
+				keyedExecutor.execute(key, new Runnable() {
+					public void run() {
+						results.get(key).add(value);
+						latch.countDown();
+					}
+				});
+			}
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+		
+		for(List<Integer> result:results) {
+			assertEquals(tasksPerKey, result.size());
+			for(int i=0;i<tasksPerKey;i++) {
+				assertEquals(i, (int) result.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testSlowKeyDoesntBlockOthers() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		KeyedExecutor keyedExecutor = new KeyedExecutor(executor);
+		
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch fastDone = new CountDownLatch(10);
+		keyedExecutor.execute("slow", new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		});
+		for(int i=0;i<10;i++) {
+			keyedExecutor.execute("fast", new Runnable() {
+				public void run() {
+					fastDone.countDown();
+				}
+			});
+		}
+		assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+		release.countDown();
+		executor.shutdown();
+	}
+
+	@Test
+	public void testMultipleProducers() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		final KeyedExecutor keyedExecutor = new KeyedExecutor(executor);
+		
+		final int producers = 8;
+		final int keys = 4;
+		final int tasksPerProducer = 20000;
+		final AtomicIntegerArray executions = new AtomicIntegerArray(producers*tasksPerProducer);
+		// Last value run per producer and key. Tasks of a key never run concurrently
+		final int[][] lastValues = new int[producers][keys];
+		final boolean[] outOfOrder = new boolean[1];
+		final CountDownLatch latch = new CountDownLatch(producers*tasksPerProducer);
+		
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int p=0;p<producers;p++) {
+			final int producer = p;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					for(int i=0;i<tasksPerProducer;i++) {
+						final int key = i % keys;
+						final int value = i;
+						keyedExecutor.execute(key, new Runnable() {
+							public void run() {
+								executions.incrementAndGet(producer*tasksPerProducer+value);
+								synchronized (lastValues) {
+									if(value < lastValues[producer][key]) {
+										outOfOrder[0] = true;
+									}
+									lastValues[producer][key] = value;
+								}
+								latch.countDown();
+							}
+						});
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread:threads) {
+			thread.join();
+		}
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		
+		assertFalse(outOfOrder[0]);
+		for(int i=0;i<executions.length();i++) {
+			assertEquals(1, executions.get(i));
+		}
+	}
+}
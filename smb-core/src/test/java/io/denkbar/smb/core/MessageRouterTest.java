@@ -0,0 +1,327 @@
+package io.denkbar.smb.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageRouterTest {
+
+	private MessageRouter server;
+	
+	private MessageRouter client;
+
+	@Before
+	public void before() throws IOException, InterruptedException {
+		final ServerSocket serverSocket = new ServerSocket(0);
+		try {
+			// Both ends have to be created concurrently as the constructor waits for the stream header of the peer
+			Thread acceptor = new Thread(new Runnable() {
+				public void run() {
+					try {
+						server = new MessageRouter(null, serverSocket.accept());
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			acceptor.start();
+			client = new MessageRouter(null, new Socket("localhost", serverSocket.getLocalPort()));
+			acceptor.join();
+		} finally {
+			serverSocket.close();
+		}
+		client.start();
+		server.start();
+	}
+
+	@After
+	public void after() {
+		client.disconnect();
+		server.disconnect();
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		final int count = 1000;
+		server.registerStreamingListener("lines", new StreamingMessageListener() {
+			public void onStreamingMessage(Message msg, ResponseStream stream) throws Exception {
+				for(int i=0;i<count;i++) {
+					stream.emit(i);
+				}
+			}
+		});
+		
+		StreamingResponse response = client.stream(new Message("lines", null), 10000, 8);
+		int expected = 0;
+		while(response.hasNext()) {
+			assertEquals(expected++, response.next());
+		}
+		assertEquals(count, expected);
+		response.close();
+	}
+
+	@Test
+	public void testStreamException() throws Exception {
+		server.registerStreamingListener("failing", new StreamingMessageListener() {
+			public void onStreamingMessage(Message msg, ResponseStream stream) throws Exception {
+				stream.emit("first");
+				throw new Exception("Failure");
+			}
+		});
+		
+		StreamingResponse response = client.stream(new Message("failing", null), 10000);
+		assertEquals("first", response.next());
+		try {
+			response.hasNext();
+			assertTrue(false);
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof RemoteException);
+		}
+	}
+
+	@Test
+	public void testStreamClose() throws Exception {
+		final Object lock = new Object();
+		final boolean[] cancelled = new boolean[1];
+		server.registerStreamingListener("infinite", new StreamingMessageListener() {
+			public void onStreamingMessage(Message msg, ResponseStream stream) throws Exception {
+				try {
+					while(true) {
+						stream.emit("element");
+					}
+				} finally {
+					synchronized (lock) {
+						cancelled[0] = stream.isCancelled();
+						lock.notifyAll();
+					}
+				}
+			}
+		});
+		
+		StreamingResponse response = client.stream(new Message("infinite", null), 10000, 4);
+		for(int i=0;i<10;i++) {
+			assertEquals("element", response.next());
+		}
+		response.close();
+		assertFalse(response.hasNext());
+		synchronized (lock) {
+			if(!cancelled[0]) {
+				lock.wait(10000);
+			}
+		}
+		assertTrue(cancelled[0]);
+	}
+
+	@Test
+	public void testStreamTimeout() throws Exception {
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		server.registerStreamingListener("slow", new StreamingMessageListener() {
+			public void onStreamingMessage(Message msg, ResponseStream stream) throws Exception {
+				stream.emit("first");
+				Thread.sleep(500);
+				try {
+					stream.emit("second");
+				} catch (CancellationException e) {
+					cancelled.countDown();
+				}
+			}
+		});
+		
+		StreamingResponse response = client.stream(new Message("slow", null), 100);
+		assertEquals("first", response.next());
+		try {
+			response.hasNext();
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+		assertFalse(response.hasNext());
+	}
+
+	@Test
+	public void testStreamDisconnect() throws Exception {
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		server.registerStreamingListener("blocked", new StreamingMessageListener() {
+			public void onStreamingMessage(Message msg, ResponseStream stream) throws Exception {
+				try {
+					while(true) {
+						stream.emit("element");
+					}
+				} catch (CancellationException e) {
+					cancelled.countDown();
+				}
+			}
+		});
+		
+		StreamingResponse response = client.stream(new Message("blocked", null), 10000, 1);
+		assertEquals("element", response.next());
+		client.disconnect();
+		// The listener blocked in emit() is released as soon as the server detects the disconnection
+		assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+		try {
+			while(response.hasNext()) {
+				response.next();
+			}
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void testOpenStreamsDontBlockCalls() throws Exception {
+		server.registerStreamingListener("infinite", new StreamingMessageListener() {
+			public void onStreamingMessage(Message msg, ResponseStream stream) throws Exception {
+				while(true) {
+					stream.emit("element");
+				}
+			}
+		});
+		server.registerSynchronListener("echo", new SynchronMessageListener() {
+			public Serializable onSynchronMessage(Message msg) throws Exception {
+				return msg.getStringContent();
+			}
+		});
+		
+		// More open streams than threads in the default listener pool, each blocked in emit()
+		List<StreamingResponse> streams = new ArrayList<StreamingResponse>();
+		for(int i=0;i<3;i++) {
+			StreamingResponse stream = client.stream(new Message("infinite", null), 10000, 1);
+			assertEquals("element", stream.next());
+			streams.add(stream);
+		}
+		assertEquals("hello", client.call(new Message("echo", "hello"), 2000));
+		for(StreamingResponse stream:streams) {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void testOrderedDispatchWithNullKey() throws Exception {
+		server.setMessageKeyExtractor(new MessageKeyExtractor() {
+			public Object getKey(Message msg) {
+				return msg.getContent();
+			}
+		});
+		server.registerSynchronListener("echo", new SynchronMessageListener() {
+			public Serializable onSynchronMessage(Message msg) throws Exception {
+				return msg.getType();
+			}
+		});
+		assertEquals("echo", client.call(new Message("echo", null), 2000));
+		assertEquals("echo", client.call(new Message("echo", "key"), 2000));
+	}
+
+	@Test
+	public void testCallCancellation() throws Exception {
+		final Object lock = new Object();
+		final boolean[] result = new boolean[2];
+		server.registerSynchronListener("slow", new SynchronMessageListener() {
+			public Serializable onSynchronMessage(Message msg) throws Exception {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					synchronized (lock) {
+						result[0] = true;
+						result[1] = CancellationToken.current().isCancelled();
+						lock.notifyAll();
+					}
+				}
+				return "late response";
+			}
+		});
+		
+		try {
+			client.call(new Message("slow", null), 100);
+			assertTrue(false);
+		} catch (TimeoutException e) {
+		}
+		synchronized (lock) {
+			if(!result[0]) {
+				lock.wait(10000);
+			}
+		}
+		assertTrue(result[0]);
+		assertTrue(result[1]);
+	}
+
+	@Test
+	public void testTracing() throws Exception {
+		server.registerSynchronListener("traced", new SynchronMessageListener() {
+			public Serializable onSynchronMessage(Message msg) throws Exception {
+				Thread.sleep(50);
+				return "response";
+			}
+		});
+		final List<MessageTrace> traces = new ArrayList<MessageTrace>();
+		client.setMessageTraceListener(new MessageTraceListener() {
+			public void onMessageTrace(SynchronMessage message, MessageTrace trace) {
+				traces.add(trace);
+			}
+		});
+		client.setTraceSamplingInterval(2);
+		for(int i=0;i<4;i++) {
+			assertEquals("response", client.call(new Message("traced", null), 10000));
+		}
+		
+		assertEquals(2, traces.size());
+		for(MessageTrace trace:traces) {
+			for(MessageTrace.Stage stage:MessageTrace.Stage.values()) {
+				assertTrue(trace.getTimestamp(stage) != 0);
+			}
+			assertTrue(trace.getListenerTime() >= 50000000);
+			assertTrue(trace.getNetworkTime() >= 0);
+			assertTrue(trace.getTotalTime() >= trace.getListenerTime());
+		}
+	}
+
+	@Test
+	public void testTracingTimeout() throws Exception {
+		server.registerSynchronListener("slow", new SynchronMessageListener() {
+			public Serializable onSynchronMessage(Message msg) throws Exception {
+				Thread.sleep(500);
+				return "late response";
+			}
+		});
+		final List<MessageTrace> traces = new ArrayList<MessageTrace>();
+		client.setMessageTraceListener(new MessageTraceListener() {
+			public void onMessageTrace(SynchronMessage message, MessageTrace trace) {
+				traces.add(trace);
+			}
+		});
+		client.setTraceSamplingInterval(1);
+		try {
+			client.call(new Message("slow", null), 100);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		
+		assertEquals(1, traces.size());
+		MessageTrace trace = traces.get(0);
+		assertTrue(trace.getTimestamp(MessageTrace.Stage.REQUEST_SENT) != 0);
+		assertEquals(0, trace.getTimestamp(MessageTrace.Stage.RESPONSE_RECEIVED));
+		assertTrue(trace.getSerializationTime() >= 0);
+		assertEquals(-1, trace.getTotalTime());
+		
+		// The reported trace isn't updated once the call has timed out
+		Thread.sleep(700);
+		assertEquals(0, trace.getTimestamp(MessageTrace.Stage.RESPONSE_RECEIVED));
+	}
+}
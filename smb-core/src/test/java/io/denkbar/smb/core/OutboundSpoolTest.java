@@ -0,0 +1,153 @@
+package io.denkbar.smb.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutboundSpoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testAppendAndDrainAcrossSegments() throws IOException {
+		File directory = folder.newFolder();
+		OutboundSpool spool = new OutboundSpool(directory, 1024, 1024*1024);
+		for(int i=0;i<100;i++) {
+			assertTrue(spool.append(new Message("msg", i)));
+		}
+		assertTrue(directory.listFiles().length > 1);
+
+		int expected = 0;
+		while(!spool.isEmpty()) {
+			OutboundSpool.Batch batch = spool.peek(7);
+			for(Message message:batch.getMessages()) {
+				assertEquals(expected++, (int) message.getIntegerContent());
+			}
+			spool.remove(batch.getRecordCount());
+		}
+		assertEquals(100, expected);
+		assertEquals(1, directory.listFiles().length);
+		spool.close();
+	}
+
+	@Test
+	public void testRecovery() throws IOException {
+		File directory = folder.newFolder();
+		OutboundSpool spool = new OutboundSpool(directory, 1024, 1024*1024);
+		for(int i=0;i<50;i++) {
+			spool.append(new Message("msg", i));
+		}
+		spool.remove(10);
+		spool.close();
+
+		spool = new OutboundSpool(directory, 1024, 1024*1024);
+		List<Message> messages = spool.peek(100).getMessages();
+		assertEquals(40, messages.size());
+		assertEquals(10, (int) messages.get(0).getIntegerContent());
+		assertEquals(49, (int) messages.get(39).getIntegerContent());
+		spool.close();
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		File directory = folder.newFolder();
+		OutboundSpool spool = new OutboundSpool(directory, 1024, 2048);
+		for(int i=0;i<100;i++) {
+			spool.append(new Message("msg", i));
+		}
+		assertEquals(2, directory.listFiles().length);
+		List<Message> messages = spool.peek(100).getMessages();
+		assertTrue(messages.size() < 100);
+		assertEquals(99, (int) messages.get(messages.size()-1).getIntegerContent());
+		spool.close();
+	}
+
+	@Test
+	public void testUnreadableRecord() throws IOException {
+		File directory = folder.newFolder();
+		OutboundSpool spool = new OutboundSpool(directory, 1024, 1024*1024);
+		spool.append(new Message("corrupted", null));
+		spool.close();
+		
+		// Corrupt the stream header of the first record
+		RandomAccessFile file = new RandomAccessFile(directory.listFiles()[0], "rw");
+		try {
+			file.seek(8);
+			file.writeInt(0);
+		} finally {
+			file.close();
+		}
+		
+		spool = new OutboundSpool(directory, 1024, 1024*1024);
+		for(int i=0;i<3;i++) {
+			spool.append(new Message("msg", i));
+		}
+		List<Integer> drained = new ArrayList<Integer>();
+		while(true) {
+			OutboundSpool.Batch batch = spool.peek(2);
+			if(batch.getRecordCount()==0) {
+				break;
+			}
+			for(Message message:batch.getMessages()) {
+				drained.add(message.getIntegerContent());
+			}
+			spool.remove(batch.getRecordCount());
+		}
+		assertEquals(Arrays.asList(0, 1, 2), drained);
+		assertTrue(spool.isEmpty());
+		spool.close();
+	}
+
+	@Test
+	public void testRegisteredContent() throws IOException {
+		ContentSerializerRegistry registry = new ContentSerializerRegistry();
+		registry.register(Point.class, 1, new ContentSerializer<Point>() {
+			public void write(Point content, ObjectOutput out) throws IOException {
+				out.writeInt(content.x);
+				out.writeInt(content.y);
+			}
+
+			public Point read(ObjectInput in) throws IOException {
+				return new Point(in.readInt(), in.readInt());
+			}
+		});
+		
+		OutboundSpool spool = new OutboundSpool(folder.newFolder(), 1024, 1024*1024);
+		spool.setContentSerializerRegistry(registry);
+		// Point isn't Serializable and can only be spooled through its registered serializer
+		assertTrue(spool.append(new Message("point", new Point(3, 4))));
+		
+		List<Message> messages = spool.peek(10).getMessages();
+		assertEquals(1, messages.size());
+		Point point = (Point) messages.get(0).getContent();
+		assertEquals(3, point.x);
+		assertEquals(4, point.y);
+		spool.close();
+	}
+
+	private static class Point {
+
+		private final int x;
+
+		private final int y;
+
+		public Point(int x, int y) {
+			super();
+			this.x = x;
+			this.y = y;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package io.denkbar.smb.core;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Cost profile of the TLS transport relative to plain sockets. Skipped by default, run it with
+ * 
+ * mvn test -Dtest=TlsBenchmarkTest -Dsmb.benchmark=true
+ */
+public class TlsBenchmarkTest {
+
+	private static final int CONNECTIONS = 50;
+
+	private static final int CALLS = 10000;
+
+	private static final int WARMUP = 2000;
+
+	@Test
+	public void benchmark() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("smb.benchmark"));
+		
+		SSLContext sslContext = ClientTest.createSSLContext();
+		ServerSocket plainServerSocket = new ServerSocket(0);
+		ServerSocket tlsServerSocket = sslContext.getServerSocketFactory().createServerSocket(0);
+		List<MessageRouter> servers = new CopyOnWriteArrayList<MessageRouter>();
+		startServer(plainServerSocket, servers);
+		startServer(tlsServerSocket, servers);
+		try {
+			// Warm up both paths before measuring
+			measureConnect(null, plainServerSocket.getLocalPort(), false);
+			measureConnect(sslContext, tlsServerSocket.getLocalPort(), false);
+			
+			long plainConnect = measureConnect(null, plainServerSocket.getLocalPort(), false);
+			long fullHandshake = measureConnect(sslContext, tlsServerSocket.getLocalPort(), true);
+			long resumedHandshake = measureConnect(sslContext, tlsServerSocket.getLocalPort(), false);
+			long plainCall = measureCall(null, plainServerSocket.getLocalPort());
+			long tlsCall = measureCall(sslContext, tlsServerSocket.getLocalPort());
+			
+			System.out.println("Connect (plain):           " + plainConnect/1000 + " us");
+			System.out.println("Connect (TLS full):        " + fullHandshake/1000 + " us");
+			System.out.println("Connect (TLS resumed):     " + resumedHandshake/1000 + " us");
+			System.out.println("1KB call (plain):          " + plainCall/1000.0 + " us");
+			System.out.println("1KB call (TLS):            " + tlsCall/1000.0 + " us (" + String.format("%+d", (tlsCall-plainCall)*100/plainCall) + "%)");
+		} finally {
+			plainServerSocket.close();
+			tlsServerSocket.close();
+			for(MessageRouter server:servers) {
+				server.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * @param fullHandshake if true, a fresh SSLContext is used for each connection so that no session can be resumed
+	 * @return the average time in ns to connect a client, including the handshake and the creation of the router
+	 */
+	private long measureConnect(SSLContext sslContext, int port, boolean fullHandshake) throws Exception {
+		long total = 0;
+		for(int i=0;i<CONNECTIONS;i++) {
+			SSLContext context = fullHandshake ? ClientTest.createSSLContext() : sslContext;
+			long start = System.nanoTime();
+			MessageRouter router = context!=null ? new MessageRouter(null, context, "localhost", port) : new MessageRouter("localhost", port);
+			total += System.nanoTime() - start;
+			router.disconnect();
+		}
+		return total / CONNECTIONS;
+	}
+
+	/**
+	 * @return the average round trip time in ns of a call with a 1KB payload
+	 */
+	private long measureCall(SSLContext sslContext, int port) throws Exception {
+		MessageRouter router = sslContext!=null ? new MessageRouter(null, sslContext, "localhost", port) : new MessageRouter("localhost", port);
+		router.start();
+		try {
+			Message message = new Message("echo", new byte[1024]);
+			for(int i=0;i<WARMUP;i++) {
+				router.call(message, 10000);
+			}
+			long start = System.nanoTime();
+			for(int i=0;i<CALLS;i++) {
+				router.call(message, 10000);
+			}
+			return (System.nanoTime() - start) / CALLS;
+		} finally {
+			router.disconnect();
+		}
+	}
+
+	private void startServer(final ServerSocket serverSocket, final List<MessageRouter> servers) {
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					while(true) {
+						final Socket socket = serverSocket.accept();
+						if(socket instanceof SSLSocket) {
+							// Same setting as Client.ConnectionFuture
+							socket.setTcpNoDelay(true);
+						}
+						// The router creation blocks until the client has sent its stream header
+						new Thread(new Runnable() {
+							public void run() {
+								try {
+									MessageRouter server = new MessageRouter(null, socket);
+									server.registerSynchronListener("echo", new SynchronMessageListener() {
+										public Serializable onSynchronMessage(Message msg) throws Exception {
+											return (Serializable) msg.getContent();
+										}
+									});
+									servers.add(server);
+									server.start();
+								} catch (IOException e) {
+								}
+							}
+						}).start();
+					}
+				} catch (IOException e) {
+				}
+			}
+		}).start();
+	}
+}